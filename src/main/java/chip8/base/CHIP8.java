@@ -16,6 +16,8 @@ import javafx.animation.KeyFrame;
 import javafx.util.Duration;
 import java.io.InputStream;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
 import javax.sound.midi.*;
 
 /**
@@ -60,8 +62,49 @@ public class CHIP8 extends Application{
     /**ROM path.*/
     String rom;
 
-    /**Timer variable.*/
-    private long lastTime;
+    /**Emulated frame number; timers, display and keypad update once per frame.*/
+    long frame;
+
+    /**Instructions executed in the current frame.*/
+    int cycle;
+
+    /**Instructions per 60Hz frame, derived from the clock speed.*/
+    int cyclesPerFrame;
+
+    /**RNG seed and xorshift state, so Cxkk is reproducible per machine.*/
+    long seed;
+    private long rngState;
+
+    /**CRC32 of the loaded ROM.*/
+    int romCrc;
+
+    /**Keys held as reported by JavaFX, latched into numpad at the next frame.*/
+    int pendingKeys;
+
+    /**Keypad mask currently visible to the program.*/
+    private int keypadMask;
+
+    /**Input movie being recorded, and where to save it.*/
+    InputMovie recording;
+    private File recordFile;
+
+    /**Input movie being replayed; live key events are ignored.*/
+    InputMovie replay;
+
+    /**Memory-mapped framebuffer and keypad for external processes, if enabled.*/
+    SharedFrame shared;
+
+    /**Speculative frames presented ahead of the real machine, if enabled.*/
+    RunAhead runAhead;
+
+    /**Input-to-screen latency, measured whenever there is a window.*/
+    InputLatency latency;
+
+    /**When the first keyboard event since the last frame boundary arrived, or 0.*/
+    private long keyNanos;
+
+    /**No window or sound; used for replays.*/
+    boolean headless;
 
     /**Step timer.*/
     Timeline stepTimer;
@@ -72,6 +115,12 @@ public class CHIP8 extends Application{
     /**Used to pause execution for debugging.*/
     boolean paused;
 
+    /**Breakpoints, watchpoints and stepping.*/
+    final Debugger debugger = new Debugger(this);
+
+    /**Per-tick dispatch; swapped to the checked path only while the debugger is armed.*/
+    Runnable dispatch = this::step;
+
     /**Used for sound synthesis*/
     private Synthesizer synthesizer;
     private MidiChannel channel;
@@ -93,6 +142,27 @@ public class CHIP8 extends Application{
             DEBUG = false;
         }
 
+        //Breakpoints, e.g. --break=200,2A4 (hex PCs)
+        if (params.getNamed().containsKey("break")) {
+            for (String pc : params.getNamed().get("break").split(",")) {
+                debugger.addBreakpoint(Integer.parseInt(pc.trim(), 16));
+            }
+        }
+
+        //Conditional breakpoints, e.g. --cond=V3==05@2A4,I>300 (hex values and PCs)
+        if (params.getNamed().containsKey("cond")) {
+            for (String cond : params.getNamed().get("cond").split(",")) {
+                debugger.addCondition(cond);
+            }
+        }
+
+        //Watchpoints, e.g. --watch=300-30Fw,400r (hex ranges, optional r/w for reads/writes only)
+        if (params.getNamed().containsKey("watch")) {
+            for (String range : params.getNamed().get("watch").split(",")) {
+                debugger.addWatchpoint(range);
+            }
+        }
+
         try {
             synthesizer = MidiSystem.getSynthesizer();
             synthesizer.open();
@@ -107,8 +177,39 @@ public class CHIP8 extends Application{
             debug("Shutdown hook triggered, MIDI closed.");
         }));
 
+        //Reproducible RNG, e.g. --seed=1234
+        if (params.getNamed().containsKey("seed")) {
+            seed = Long.parseLong(params.getNamed().get("seed"));
+        } else {
+            seed = System.nanoTime();
+        }
+
+        //Record keypad input to a movie, e.g. --record=run.c8m
+        if (params.getNamed().containsKey("record")) {
+            recordFile = new File(params.getNamed().get("record"));
+        }
+
+        //Publish frames and accept input through a shared file, e.g. --shm=/dev/shm/chip8
+        if (params.getNamed().containsKey("shm")) {
+            try {
+                shared = SharedFrame.create(new File(params.getNamed().get("shm")));
+            } catch (IOException ex) {
+                throw new RuntimeException("Could not map shared frame: " + ex.getMessage());
+            }
+        }
+
+        //Present frames speculatively run ahead, e.g. --runahead=2, optionally on a worker thread
+        if (params.getNamed().containsKey("runahead")) {
+            int frames = Integer.parseInt(params.getNamed().get("runahead"));
+            boolean threaded = params.getNamed().containsKey("runahead-thread")
+                && params.getNamed().get("runahead-thread").toUpperCase().compareTo("TRUE") == 0;
+            runAhead = new RunAhead(frames, threaded);
+        }
+
+        latency = new InputLatency();
+
         reset();
-        stepTimer = new Timeline( new KeyFrame(Duration.seconds(1.0/frequency),(e) -> step()));
+        stepTimer = new Timeline( new KeyFrame(Duration.seconds(1.0/frequency),(e) -> dispatch.run()));
         stepTimer.setCycleCount(Timeline.INDEFINITE);
 
         //Set up numpad listener
@@ -125,6 +226,22 @@ public class CHIP8 extends Application{
     }
 
     public void stop() {
+        if (runAhead != null) {
+            runAhead.close();
+            System.out.println(runAhead.report());
+        }
+        if (latency != null) {
+            System.out.println(latency.report());
+        }
+        if (recording != null) {
+            recording.finish(this);
+            try {
+                recording.save(recordFile);
+                System.out.println("Saved " + recording.size() + " input events to " + recordFile);
+            } catch (IOException ex) {
+                System.err.println("Could not save input movie: " + ex.getMessage());
+            }
+        }
         // Ensure the MIDI synthesizer is closed when the app exits
         close();
         debug("Application stopped, MIDI closed.");
@@ -144,6 +261,14 @@ public class CHIP8 extends Application{
         display = new boolean[64][32];
         I = 0;
         numpad = new boolean[16];
+        keypadMask = 0;
+        frame = 0;
+        cycle = 0;
+        cyclesPerFrame = Math.max(1, (int) Math.round(frequency / 60));
+        rngState = seed ^ 0x9E3779B97F4A7C15L;
+        if (rngState == 0) {
+            rngState = 1;
+        }
         mapping = new String[]{"x","1","2","3","q","w","e","a","s","d","z","c","4","r","f","v"};
 
         //Load charset into RAM
@@ -170,8 +295,18 @@ public class CHIP8 extends Application{
         } catch (FileNotFoundException ex) {
             throw new RuntimeException("File not found!");
         }
-        //Init timer variable
-        lastTime = System.currentTimeMillis();
+        //Speculation from before the reset must not be presented
+        if (runAhead != null) {
+            runAhead.reset();
+        }
+        if (latency != null) {
+            latency.reset();
+        }
+
+        //A reset while recording starts the movie over
+        if (recordFile != null) {
+            recording = new InputMovie(seed, cyclesPerFrame, romCrc);
+        }
         paused = false;
     }
 
@@ -181,27 +316,22 @@ public class CHIP8 extends Application{
             return;
         }
 
-        //Display update timer
-        if (System.currentTimeMillis() - lastTime > 16) {
-            dt = dt > 0 ? (dt - 1) : 0;
-            st = st > 0 ? (st - 1) : 0;
-            updateDisplay();
-            if (st > 0) {
-                startBeeping();
-            } else {
-                stopBeeping();
-            }
-            lastTime = System.currentTimeMillis();
+        //Frame boundary, counted in instructions so runs are reproducible
+        if (cycle >= cyclesPerFrame) {
+            endFrame();
         }
+        cycle++;
 
         //Fetch instruction
         int high = ram[pc];
         int low = ram[pc + 1];
 
         //Decode Instruction
-        String lower = String.format("%02X", low);
-        String upper = String.format("%02X", high);
-        debug(pc + ": " + upper.substring(upper.length() - 2, upper.length()) + " " + lower.substring(lower.length() - 2, lower.length()) + "\n");
+        if (DEBUG) {
+            String lower = String.format("%02X", low);
+            String upper = String.format("%02X", high);
+            debug(pc + ": " + upper.substring(upper.length() - 2, upper.length()) + " " + lower.substring(lower.length() - 2, lower.length()) + "\n");
+        }
 
         //00 high
         if ((high & 0xFF) == 0) {
@@ -319,7 +449,7 @@ public class CHIP8 extends Application{
 
         //RND
         if ((high  & 0xFF) >>> 4 == 0xC) {
-            gpr[high & 0xF] = ((int)(Math.random() * 256) & 0xFF) & low;
+            gpr[high & 0xF] = nextRandom() & low;
             pc+=2;
             return;
         }
@@ -366,6 +496,158 @@ public class CHIP8 extends Application{
         return;
     }
 
+    /**Publish the finished frame, then tick timers, latch the keypad and redraw for the new one.*/
+    private void endFrame() {
+        cycle = 0;
+        if (shared != null) {
+            shared.publish(frame, display, keypadMask);
+        }
+        frame++;
+        dt = dt > 0 ? (dt - 1) : 0;
+        st = st > 0 ? (st - 1) : 0;
+
+        int keys;
+        if (replay != null) {
+            keys = replay.keysAt(frame);
+        } else if (shared != null) {
+            keys = pendingKeys | shared.input();
+        } else {
+            keys = pendingKeys;
+        }
+        if (keys != keypadMask) {
+            int previous = keypadMask;
+            for (int i = 0; i < 16; i++) {
+                numpad[i] = (keys & (1 << i)) != 0;
+            }
+            keypadMask = keys;
+            //Shared-memory input has no event time, so it counts from the latch
+            if (latency != null) {
+                latency.input(this, previous, keyNanos != 0 ? keyNanos : System.nanoTime());
+            }
+            if (recording != null) {
+                recording.record(frame, keys);
+            }
+        }
+        keyNanos = 0;
+
+        boolean[][] shown = runAhead != null ? runAhead.present(this) : display;
+        if (latency != null) {
+            if (runAhead != null) {
+                latency.presented(frame, runAhead.shownFrame, runAhead.shownInput);
+            } else {
+                latency.presented(frame, frame, frame);
+            }
+        }
+
+        if (!headless) {
+            updateDisplay(shown);
+            if (runAhead != null && latency != null && frame % 600 == 0) {
+                System.out.println(runAhead.report());
+                System.out.println(latency.report());
+            }
+            if (st > 0) {
+                startBeeping();
+            } else {
+                stopBeeping();
+            }
+        }
+    }
+
+    /**xorshift64* step; returns the top 8 bits.*/
+    private int nextRandom() {
+        rngState ^= rngState >>> 12;
+        rngState ^= rngState << 25;
+        rngState ^= rngState >>> 27;
+        return (int) ((rngState * 0x2545F4914F6CDD1DL) >>> 56);
+    }
+
+    /**Copy the whole machine state into s.*/
+    public void saveState(Snapshot s) {
+        System.arraycopy(ram, 0, s.ram, 0, ram.length);
+        System.arraycopy(gpr, 0, s.gpr, 0, gpr.length);
+        System.arraycopy(stack, 0, s.stack, 0, stack.length);
+        System.arraycopy(numpad, 0, s.numpad, 0, numpad.length);
+        for (int column = 0; column < 64; column++) {
+            System.arraycopy(display[column], 0, s.display[column], 0, 32);
+        }
+        s.dt = dt;
+        s.st = st;
+        s.pc = pc;
+        s.sp = sp;
+        s.I = I;
+        s.paused = paused;
+        s.frame = frame;
+        s.cycle = cycle;
+        s.cyclesPerFrame = cyclesPerFrame;
+        s.rngState = rngState;
+        s.pendingKeys = pendingKeys;
+        s.keypadMask = keypadMask;
+    }
+
+    /**Restore the whole machine state from s.*/
+    public void loadState(Snapshot s) {
+        if (ram == null) {
+            ram = new int[4096];
+            gpr = new int[16];
+            stack = new int[16];
+            numpad = new boolean[16];
+            display = new boolean[64][32];
+        }
+        System.arraycopy(s.ram, 0, ram, 0, ram.length);
+        System.arraycopy(s.gpr, 0, gpr, 0, gpr.length);
+        System.arraycopy(s.stack, 0, stack, 0, stack.length);
+        System.arraycopy(s.numpad, 0, numpad, 0, numpad.length);
+        for (int column = 0; column < 64; column++) {
+            System.arraycopy(s.display[column], 0, display[column], 0, 32);
+        }
+        dt = s.dt;
+        st = s.st;
+        pc = s.pc;
+        sp = s.sp;
+        I = s.I;
+        paused = s.paused;
+        frame = s.frame;
+        cycle = s.cycle;
+        cyclesPerFrame = s.cyclesPerFrame;
+        rngState = s.rngState;
+        pendingKeys = s.pendingKeys;
+        keypadMask = s.keypadMask;
+    }
+
+    /**CRC32 of the display, one byte per pixel in row order.*/
+    int displayCrc() {
+        CRC32 crc = new CRC32();
+        for (int row = 0; row < 32; row++) {
+            for (int column = 0; column < 64; column++) {
+                crc.update(display[column][row] ? 1 : 0);
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    /**CRC32 of RAM as unsigned bytes.*/
+    int ramCrc() {
+        CRC32 crc = new CRC32();
+        for (int b : ram) {
+            crc.update(b & 0xFF);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**Checked dispatch path, only installed while the debugger is armed.*/
+    private void debugStep() {
+        if (paused || debugger.shouldBreak()) {
+            return;
+        }
+        step();
+        debugger.afterStep();
+    }
+
+    /**Install the plain or checked dispatch path to match the debugger state.*/
+    void updateDispatch() {
+        dispatch = debugger.isArmed() ? this::debugStep : this::step;
+    }
+
     public void subsetF(int low, int high) {
         switch (low) {
             case 0x07://Read delay timer
@@ -437,11 +719,11 @@ public class CHIP8 extends Application{
         if (DEBUG) System.out.println();
     }
 
-    private void updateDisplay() {
+    void updateDisplay(boolean[][] pixels) {
         GraphicsContext gc = canvas.getGraphicsContext2D();
         for (int row = 0; row < 32; row++) {
             for (int column = 0; column < 64; column++) {
-                if (display[column][row]) {
+                if (pixels[column][row]) {
                     gc.setFill(Color.WHITE);
                     gc.fillRect(column * 10, row * 10, 10, 10);
                 } else {
@@ -598,6 +880,9 @@ public class CHIP8 extends Application{
             if (allBytes.length > 4096 - 0x200) {
                 throw new IllegalArgumentException("ROM too big!");
             }
+            CRC32 crc = new CRC32();
+            crc.update(allBytes);
+            romCrc = (int) crc.getValue();
             //Copy array into RAM
             for (int i = 0; i < allBytes.length; i++) {
                 ram[0x200 + i] = allBytes[i];
@@ -652,8 +937,11 @@ public class CHIP8 extends Application{
         for (int i = 0; i < mapping.length; i++)  {
             if (mapping[i].compareTo(ch) == 0) {
                 debug("Released " + ch);
-                //Key released
-                numpad[i] = false;
+                //Key released, visible from the next frame
+                pendingKeys &= ~(1 << i);
+                if (keyNanos == 0) {
+                    keyNanos = System.nanoTime();
+                }
             }
         }
     }
@@ -667,13 +955,35 @@ public class CHIP8 extends Application{
         for (int i = 0; i < mapping.length; i++)  {
             if (mapping[i].compareTo(ch) == 0) {
                 debug("Pressed " + ch);
-                //Key pressed
-                numpad[i] = true;
+                //Key pressed, visible from the next frame
+                pendingKeys |= 1 << i;
+                if (keyNanos == 0) {
+                    keyNanos = System.nanoTime();
+                }
             }
         }
 
         if (ch.compareTo("p") == 0) {
-            paused = !paused;
+            if (paused) {
+                debugger.resume();
+            } else {
+                paused = true;
+            }
+        }
+
+        //Debugger stepping and views
+        if (ch.compareTo("n") == 0) {
+            debugger.stepInto();
+        }
+        if (ch.compareTo("m") == 0) {
+            debugger.stepOver();
+        }
+        if (ch.compareTo("b") == 0) {
+            debugger.stepOut();
+        }
+        if (ch.compareTo("l") == 0) {
+            System.out.println(debugger.registerView());
+            System.out.println(debugger.memoryView(I & 0xFF0, 32));
         }
     }
 
@@ -0,0 +1,357 @@
+package chip8.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+*   Breakpoints, watchpoints and stepping for a CHIP8 machine.
+*   The machine only switches to its checked dispatch path while something here is armed.
+*/
+public class Debugger {
+
+    /**Pseudo register index used by conditions to refer to I.*/
+    public static final int REG_I = 16;
+
+    /**Comparison used by conditional breakpoints.*/
+    public enum Op { EQ, NE, LT, GT }
+
+    /**Pending step request.*/
+    private enum Step { NONE, INTO, OVER, OUT }
+
+    /**
+    *   Register condition, optionally tied to a PC (-1 matches any PC).
+    *   Tied to a PC it breaks on every visit, like a breakpoint; otherwise it breaks only
+    *   when it becomes true, so execution can continue while it stays true.
+    */
+    static class Condition {
+        final int pc;
+        final int reg;
+        final Op op;
+        final int value;
+        /**Result before the previous instruction.*/
+        boolean last;
+
+        Condition(int pc, int reg, Op op, int value) {
+            this.pc = pc;
+            this.reg = reg;
+            this.op = op;
+            this.value = value;
+        }
+
+        boolean test(CHIP8 m) {
+            if (pc >= 0 && pc != m.pc) {
+                return false;
+            }
+            int actual = reg == REG_I ? m.I : m.gpr[reg];
+            switch (op) {
+                case EQ: return actual == value;
+                case NE: return actual != value;
+                case LT: return actual < value;
+                case GT: return actual > value;
+            }
+            return false;
+        }
+
+        public String toString() {
+            String name = reg == REG_I ? "I" : String.format("V%X", reg);
+            String at = pc >= 0 ? String.format(" at 0x%03X", pc) : "";
+            return name + " " + op + " " + String.format("0x%X", value) + at;
+        }
+    }
+
+    /**Inclusive RAM range watched for reads and/or writes.*/
+    static class Watchpoint {
+        final int start;
+        final int end;
+        final boolean read;
+        final boolean write;
+
+        Watchpoint(int start, int end, boolean read, boolean write) {
+            this.start = start;
+            this.end = end;
+            this.read = read;
+            this.write = write;
+        }
+
+        boolean overlaps(int from, int to) {
+            return from <= end && to >= start;
+        }
+
+        public String toString() {
+            return String.format("0x%03X-0x%03X %s%s", start, end, read ? "r" : "", write ? "w" : "");
+        }
+    }
+
+    private final CHIP8 machine;
+    private final Set<Integer> breakpoints = new TreeSet<>();
+    private final List<Condition> conditions = new ArrayList<>();
+    private final List<Watchpoint> watchpoints = new ArrayList<>();
+
+    private Step stepMode = Step.NONE;
+    /**Stack pointer when the current step over/out began.*/
+    private int stepSp;
+    /**PC whose checks are skipped once, so resuming does not re-hit the same break.*/
+    private int resumePc = -1;
+
+    public Debugger(CHIP8 machine) {
+        this.machine = machine;
+    }
+
+    /**True when the machine must run the checked dispatch path.*/
+    public boolean isArmed() {
+        return !breakpoints.isEmpty() || !conditions.isEmpty() || !watchpoints.isEmpty() || stepMode != Step.NONE;
+    }
+
+    public void addBreakpoint(int pc) {
+        breakpoints.add(pc & 0xFFF);
+        machine.updateDispatch();
+    }
+
+    public void removeBreakpoint(int pc) {
+        breakpoints.remove(pc & 0xFFF);
+        machine.updateDispatch();
+    }
+
+    /**Break when register reg (0-15 for Vx, REG_I for I) compares to value; pc of -1 checks everywhere.*/
+    public void addCondition(int pc, int reg, Op op, int value) {
+        if (reg < 0 || reg > REG_I) {
+            throw new IllegalArgumentException("Unknown register " + reg);
+        }
+        conditions.add(new Condition(pc, reg, op, value));
+        machine.updateDispatch();
+    }
+
+    /**
+    *   Add a condition written as REG OP VALUE[@PC], e.g. V3==05@2A4 or I>300.
+    *   REG is V0-VF or I, OP is ==, !=, &lt; or &gt;, and VALUE and PC are hex.
+    */
+    public void addCondition(String spec) {
+        String s = spec.trim().toUpperCase();
+        int pc = -1;
+        int at = s.indexOf('@');
+        try {
+            if (at >= 0) {
+                pc = Integer.parseInt(s.substring(at + 1), 16);
+                s = s.substring(0, at);
+            }
+            String[] symbols = {"==", "!=", "<", ">"};
+            Op[] ops = {Op.EQ, Op.NE, Op.LT, Op.GT};
+            for (int i = 0; i < symbols.length; i++) {
+                int split = s.indexOf(symbols[i]);
+                if (split < 0) {
+                    continue;
+                }
+                String name = s.substring(0, split);
+                int value = Integer.parseInt(s.substring(split + symbols[i].length()), 16);
+                int reg;
+                if (name.equals("I")) {
+                    reg = REG_I;
+                } else if (name.length() == 2 && name.charAt(0) == 'V') {
+                    reg = Integer.parseInt(name.substring(1), 16);
+                } else {
+                    break;
+                }
+                addCondition(pc, reg, ops[i], value);
+                return;
+            }
+        } catch (NumberFormatException ex) {
+            //Fall through to the error below
+        }
+        throw new IllegalArgumentException("Bad condition: " + spec);
+    }
+
+    /**
+    *   Add a watchpoint written as START[-END][r|w], e.g. 300-30Fw, in hex.
+    *   A trailing r or w watches only reads or writes; without one, both.
+    */
+    public void addWatchpoint(String spec) {
+        String s = spec.trim().toLowerCase();
+        boolean read = true;
+        boolean write = true;
+        if (s.endsWith("r")) {
+            write = false;
+            s = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("w")) {
+            read = false;
+            s = s.substring(0, s.length() - 1);
+        }
+        String[] ends = s.split("-");
+        try {
+            int start = Integer.parseInt(ends[0], 16);
+            int end = ends.length > 1 ? Integer.parseInt(ends[1], 16) : start;
+            if (ends.length <= 2) {
+                addWatchpoint(start, end, read, write);
+                return;
+            }
+        } catch (NumberFormatException ex) {
+            //Fall through to the error below
+        }
+        throw new IllegalArgumentException("Bad watchpoint: " + spec);
+    }
+
+    /**Break before any instruction that reads and/or writes RAM in [start, end].*/
+    public void addWatchpoint(int start, int end, boolean read, boolean write) {
+        if (start > end || start < 0 || end > 0xFFF) {
+            throw new IllegalArgumentException("Bad watch range");
+        }
+        watchpoints.add(new Watchpoint(start, end, read, write));
+        machine.updateDispatch();
+    }
+
+    public void clearAll() {
+        breakpoints.clear();
+        conditions.clear();
+        watchpoints.clear();
+        stepMode = Step.NONE;
+        machine.updateDispatch();
+    }
+
+    /**Continue from a pause without immediately re-hitting the current break.*/
+    public void resume() {
+        stepMode = Step.NONE;
+        begin();
+    }
+
+    /**Execute exactly one instruction.*/
+    public void stepInto() {
+        stepMode = Step.INTO;
+        begin();
+    }
+
+    /**Execute one instruction, running a CALL through to its return.*/
+    public void stepOver() {
+        stepMode = Step.OVER;
+        begin();
+    }
+
+    /**Run until the current subroutine returns.*/
+    public void stepOut() {
+        stepMode = machine.sp > 0 ? Step.OUT : Step.INTO;
+        begin();
+    }
+
+    private void begin() {
+        stepSp = machine.sp;
+        resumePc = machine.pc;
+        machine.paused = false;
+        machine.updateDispatch();
+    }
+
+    /**
+    *   Called by the checked path before an instruction executes.
+    *   Returns true and reports if execution should stop here.
+    */
+    boolean shouldBreak() {
+        int pc = machine.pc;
+        //Conditions are evaluated every instruction to track their edges
+        Condition hit = null;
+        for (Condition c : conditions) {
+            boolean now = c.test(machine);
+            if (now && (c.pc >= 0 || !c.last) && hit == null) {
+                hit = c;
+            }
+            c.last = now;
+        }
+        if (pc == resumePc) {
+            resumePc = -1;
+            return false;
+        }
+        if (breakpoints.contains(pc)) {
+            return stop("Breakpoint at " + String.format("0x%03X", pc));
+        }
+        if (hit != null) {
+            return stop("Condition " + hit);
+        }
+        if (!watchpoints.isEmpty()) {
+            int high = machine.ram[pc] & 0xFF;
+            int low = machine.ram[pc + 1] & 0xFF;
+            int count = accessLength(high, low);
+            if (count > 0) {
+                boolean write = isWrite(high, low);
+                int from = machine.I;
+                int to = machine.I + count - 1;
+                for (Watchpoint w : watchpoints) {
+                    if (((write && w.write) || (!write && w.read)) && w.overlaps(from, to)) {
+                        return stop(String.format("Watchpoint %s: %s 0x%03X-0x%03X", w, write ? "write" : "read", from, to));
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**Called by the checked path after an instruction executes, to finish pending steps.*/
+    void afterStep() {
+        boolean done;
+        switch (stepMode) {
+            case INTO: done = true; break;
+            case OVER: done = machine.sp <= stepSp; break;
+            case OUT: done = machine.sp < stepSp; break;
+            default: done = false; break;
+        }
+        if (done) {
+            stop("Step");
+        }
+    }
+
+    private boolean stop(String reason) {
+        stepMode = Step.NONE;
+        machine.paused = true;
+        machine.updateDispatch();
+        System.out.println(reason);
+        System.out.println(registerView());
+        return true;
+    }
+
+    /**Number of RAM bytes at I the instruction touches (excluding fetch), or 0.*/
+    static int accessLength(int high, int low) {
+        switch (high >>> 4) {
+            case 0xD:
+                return low & 0x0F;
+            case 0xF:
+                switch (low) {
+                    case 0x33: return 3;
+                    case 0x55:
+                    case 0x65: return (high & 0x0F) + 1;
+                }
+                return 0;
+        }
+        return 0;
+    }
+
+    static boolean isWrite(int high, int low) {
+        return (high >>> 4) == 0xF && (low == 0x33 || low == 0x55);
+    }
+
+    /**Registers, stack and the next instruction.*/
+    public String registerView() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("PC=0x%03X  I=0x%03X  SP=%d  DT=%d  ST=%d  OP=%02X%02X%n",
+            machine.pc, machine.I, machine.sp, machine.dt, machine.st,
+            machine.ram[machine.pc] & 0xFF, machine.ram[machine.pc + 1] & 0xFF));
+        for (int i = 0; i < 16; i++) {
+            sb.append(String.format("V%X=%02X ", i, machine.gpr[i] & 0xFF));
+        }
+        sb.append(String.format("%nStack:"));
+        for (int i = 1; i <= machine.sp; i++) {
+            sb.append(String.format(" 0x%03X", machine.stack[i]));
+        }
+        return sb.toString();
+    }
+
+    /**Hex dump of length bytes starting at addr, 16 per row.*/
+    public String memoryView(int addr, int length) {
+        StringBuilder sb = new StringBuilder();
+        int end = Math.min(machine.ram.length, addr + length);
+        for (int row = addr; row < end; row += 16) {
+            sb.append(String.format("%03X:", row));
+            for (int i = row; i < Math.min(end, row + 16); i++) {
+                sb.append(String.format(" %02X", machine.ram[i] & 0xFF));
+            }
+            sb.append(String.format("%n"));
+        }
+        return sb.toString();
+    }
+}
@@ -1,12 +1,37 @@
 package chip8.base;
 
 import javafx.application.Application;
+import java.io.IOException;
 
 public class Driver {
     public static void main(String[] args) {
         for(String s : args) {
             System.out.println(s);
         }
+
+        //Headless replay, no window
+        String rom = null;
+        String replay = null;
+        for (String s : args) {
+            if (s.startsWith("--rom=")) {
+                rom = s.substring("--rom=".length());
+            } else if (s.startsWith("--replay=")) {
+                replay = s.substring("--replay=".length());
+            }
+        }
+        if (replay != null) {
+            if (rom == null) {
+                System.err.println("Usage: --rom=$ROM_NAME_HERE --replay=$MOVIE");
+                System.exit(1);
+            }
+            try {
+                System.exit(Replay.run(rom, replay) ? 0 : 1);
+            } catch (IOException e) {
+                System.err.println(e);
+                System.exit(1);
+            }
+        }
+
         try {
             Application.launch(CHIP8.class, args);
         } catch (Exception e) {
@@ -0,0 +1,125 @@
+package chip8.base;
+
+/**
+*   Input-to-screen latency, measured against a counterfactual.
+*
+*   When a keypad change is latched at frame F, two copies of the machine are run forward from
+*   that point, one with the new keypad and one with the previous keypad, until their displays
+*   differ at frame F + k. Frame F + k is the first frame that shows the input's effect, so
+*   animation unrelated to the input is not counted. The latency is then the number of real
+*   frames, and milliseconds from the input event, until a presented frame shows frame F + k
+*   and was computed with the input. Measured with and without run-ahead so the two can be compared.
+*/
+public class InputLatency {
+
+    /**Frames to look for a visible effect before giving up on an input.*/
+    static final int HORIZON = 120;
+
+    private final Snapshot snapshot = new Snapshot();
+    private final CHIP8 withInput = new CHIP8();
+    private final CHIP8 without = new CHIP8();
+
+    /**Frame the input being measured was latched at, or -1, and the first frame showing its effect.*/
+    private long inputFrame = -1;
+    private long effectFrame;
+    private long inputNanos;
+
+    private long samples;
+    private long totalFrames;
+    private long maxFrames;
+    private long totalNanos;
+    private long maxNanos;
+    private long responses;
+    private long totalResponse;
+    private long invisible;
+
+    public InputLatency() {
+        withInput.headless = true;
+        without.headless = true;
+    }
+
+    /**
+    *   A keypad change was latched at the current frame boundary of machine.
+    *   previousKeys is the mask before the change and nanos is when the input arrived.
+    *   Ignored while an earlier input is still being measured.
+    */
+    void input(CHIP8 machine, int previousKeys, long nanos) {
+        if (inputFrame >= 0) {
+            return;
+        }
+        machine.saveState(snapshot);
+        snapshot.pendingKeys = snapshot.keypadMask;
+        withInput.loadState(snapshot);
+        snapshot.pendingKeys = previousKeys;
+        snapshot.keypadMask = previousKeys;
+        for (int i = 0; i < 16; i++) {
+            snapshot.numpad[i] = (previousKeys & (1 << i)) != 0;
+        }
+        without.loadState(snapshot);
+
+        for (int k = 1; k <= HORIZON; k++) {
+            for (int i = 0; i < snapshot.cyclesPerFrame; i++) {
+                withInput.step();
+                without.step();
+            }
+            if (differs(withInput.display, without.display)) {
+                inputFrame = machine.frame;
+                effectFrame = machine.frame + k;
+                inputNanos = nanos;
+                responses++;
+                totalResponse += k;
+                return;
+            }
+        }
+        invisible++;
+    }
+
+    /**
+    *   A display was presented at the boundary starting frame. It shows the state at the
+    *   boundary of shownFrame, computed with input latched up to shownInput.
+    */
+    void presented(long frame, long shownFrame, long shownInput) {
+        if (inputFrame >= 0 && shownInput >= inputFrame && shownFrame >= effectFrame) {
+            long frames = frame - inputFrame;
+            long nanos = System.nanoTime() - inputNanos;
+            samples++;
+            totalFrames += frames;
+            maxFrames = Math.max(maxFrames, frames);
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            inputFrame = -1;
+        }
+    }
+
+    /**Abandon the input being measured, e.g. after the machine is reset.*/
+    void reset() {
+        inputFrame = -1;
+    }
+
+    private static boolean differs(boolean[][] a, boolean[][] b) {
+        for (int column = 0; column < 64; column++) {
+            for (int row = 0; row < 32; row++) {
+                if (a[column][row] != b[column][row]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    long samples() {
+        return samples;
+    }
+
+    long totalFrames() {
+        return totalFrames;
+    }
+
+    public String report() {
+        long n = Math.max(1, samples);
+        return String.format("Input-to-screen latency over %d inputs: avg %.2f frames (max %d), avg %.1f ms (max %.1f ms); "
+            + "program responds after avg %.2f frames; %d inputs had no visible effect",
+            samples, (double) totalFrames / n, maxFrames, totalNanos / 1e6 / n, maxNanos / 1e6,
+            (double) totalResponse / Math.max(1, responses), invisible);
+    }
+}
@@ -0,0 +1,149 @@
+package chip8.base;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+*   Keypad recording against emulated frame numbers.
+*
+*   File layout (big endian):
+*   <pre>
+*   "C8MV"          magic
+*   u8              version (1)
+*   i64             RNG seed
+*   i32             instructions per frame
+*   i32             CRC32 of the ROM
+*   i32             event count
+*   event count x   { varint frame delta, u16 keypad mask (bit n = key n) }
+*   i64, i32        final frame and instruction within it
+*   i32, i32        CRC32 of the display and of RAM at the final point
+*   </pre>
+*/
+public class InputMovie {
+
+    private static final int MAGIC = 0x43384D56;
+    private static final int VERSION = 1;
+
+    final long seed;
+    final int cyclesPerFrame;
+    final int romCrc;
+
+    /**Frame numbers and keypad masks of each change, in order.*/
+    private long[] frames = new long[64];
+    private int[] masks = new int[64];
+    private int count;
+
+    /**Playback cursor.*/
+    private int next;
+    private int keys;
+
+    long finalFrame;
+    int finalCycle;
+    int displayCrc;
+    int ramCrc;
+
+    public InputMovie(long seed, int cyclesPerFrame, int romCrc) {
+        this.seed = seed;
+        this.cyclesPerFrame = cyclesPerFrame;
+        this.romCrc = romCrc;
+    }
+
+    /**Record the keypad mask that takes effect at the start of frame.*/
+    void record(long frame, int mask) {
+        if (count == frames.length) {
+            frames = Arrays.copyOf(frames, count * 2);
+            masks = Arrays.copyOf(masks, count * 2);
+        }
+        frames[count] = frame;
+        masks[count] = mask & 0xFFFF;
+        count++;
+    }
+
+    /**Keypad mask in effect at frame; frames must be asked for in increasing order.*/
+    int keysAt(long frame) {
+        while (next < count && frames[next] <= frame) {
+            keys = masks[next++];
+        }
+        return keys;
+    }
+
+    /**Capture the end point and hashes the replay must reproduce.*/
+    void finish(CHIP8 machine) {
+        finalFrame = machine.frame;
+        finalCycle = machine.cycle;
+        displayCrc = machine.displayCrc();
+        ramCrc = machine.ramCrc();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(seed);
+            out.writeInt(cyclesPerFrame);
+            out.writeInt(romCrc);
+            out.writeInt(count);
+            long last = 0;
+            for (int i = 0; i < count; i++) {
+                writeVarint(out, frames[i] - last);
+                out.writeShort(masks[i]);
+                last = frames[i];
+            }
+            out.writeLong(finalFrame);
+            out.writeInt(finalCycle);
+            out.writeInt(displayCrc);
+            out.writeInt(ramCrc);
+        }
+    }
+
+    public static InputMovie load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("Not a CHIP8 input movie: " + file);
+            }
+            InputMovie movie = new InputMovie(in.readLong(), in.readInt(), in.readInt());
+            int events = in.readInt();
+            long frame = 0;
+            for (int i = 0; i < events; i++) {
+                frame += readVarint(in);
+                movie.record(frame, in.readUnsignedShort());
+            }
+            movie.finalFrame = in.readLong();
+            movie.finalCycle = in.readInt();
+            movie.displayCrc = in.readInt();
+            movie.ramCrc = in.readInt();
+            return movie;
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Bad varint");
+    }
+}
@@ -0,0 +1,47 @@
+package chip8.base;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+*   Headless, full speed replay of an input movie.
+*   Verifies the final display and RAM against the hashes stored in the movie.
+*/
+public class Replay {
+
+    /**Returns true if the replay reproduced the recorded run bit for bit.*/
+    public static boolean run(String rom, String moviePath) throws IOException {
+        InputMovie movie = InputMovie.load(new File(moviePath));
+
+        CHIP8.DEBUG = false;
+        CHIP8 machine = new CHIP8();
+        machine.headless = true;
+        machine.rom = rom;
+        machine.seed = movie.seed;
+        machine.frequency = movie.cyclesPerFrame * 60.0;
+        machine.replay = movie;
+        machine.reset();
+        if (machine.romCrc != movie.romCrc) {
+            throw new IOException("Movie was recorded with a different ROM");
+        }
+
+        long start = System.nanoTime();
+        while (!machine.paused && (machine.frame < movie.finalFrame
+                || (machine.frame == movie.finalFrame && machine.cycle < movie.finalCycle))) {
+            machine.step();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long instructions = machine.frame * machine.cyclesPerFrame + machine.cycle;
+        System.out.println(String.format("Replayed %d frames (%d instructions) in %.1f ms, %.0f instructions/s",
+            machine.frame, instructions, elapsed / 1e6, instructions / (elapsed / 1e9)));
+
+        boolean reached = machine.frame == movie.finalFrame && machine.cycle == movie.finalCycle;
+        boolean displayOk = machine.displayCrc() == movie.displayCrc;
+        boolean ramOk = machine.ramCrc() == movie.ramCrc;
+        System.out.println("End point: " + (reached ? "ok" : "NOT REACHED (machine halted)"));
+        System.out.println("Display:   " + (displayOk ? "ok" : "MISMATCH"));
+        System.out.println("RAM:       " + (ramOk ? "ok" : "MISMATCH"));
+        return reached && displayOk && ramOk;
+    }
+}
@@ -0,0 +1,149 @@
+package chip8.base;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+*   RetroArch-style run-ahead: each frame the machine is snapshotted into a shadow machine,
+*   which runs N frames ahead holding the currently latched input, and the shadow's display
+*   is presented. The real machine is never touched, so recordings and RNG state are unaffected.
+*
+*   By default the shadow runs on the calling thread, which costs only microseconds per frame.
+*   The optional worker thread runs it on another core while the real frame executes and
+*   presents the result at the next boundary, so every presented frame uses the input of the
+*   previous frame: a key latched at frame F cannot show before F + 1, one frame later than
+*   without the worker. The worker runs N + 1 frames so the lookahead stays the same, but that
+*   frame of input latency is not recovered. Only use it if speculation is too slow to run inline.
+*/
+public class RunAhead {
+
+    private final int frames;
+    private final Snapshot snapshot = new Snapshot();
+    final CHIP8 shadow = new CHIP8();
+
+    /**Copy of the shadow display handed to the caller while the worker runs on.*/
+    private final boolean[][] shown = new boolean[64][32];
+
+    /**Frame boundary whose state the last presented pixels show, and the frame whose input they used.*/
+    long shownFrame;
+    long shownInput;
+
+    /**Frame the speculation in flight was prepared at.*/
+    private long preparedFrame;
+
+    /**Worker for the shadow machine, or null to speculate on the calling thread.*/
+    private final ExecutorService worker;
+    private Future<?> pending;
+
+    /**Statistics; speculationNanos is written by the worker.*/
+    private long presented;
+    private volatile long speculationNanos;
+    private long overheadNanos;
+
+    public RunAhead(int frames, boolean threaded) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("Run-ahead needs at least one frame");
+        }
+        this.frames = frames;
+        shadow.headless = true;
+        if (threaded) {
+            worker = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "run-ahead");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            worker = null;
+        }
+    }
+
+    /**
+    *   Called at each frame boundary of the real machine, after the keypad is latched.
+    *   Returns the pixels to present.
+    */
+    boolean[][] present(CHIP8 machine) {
+        long start = System.nanoTime();
+        presented++;
+        if (worker == null) {
+            prepare(machine);
+            speculate(frames);
+            overheadNanos += System.nanoTime() - start;
+            shownFrame = machine.frame + frames;
+            shownInput = machine.frame;
+            return shadow.display;
+        }
+
+        boolean[][] pixels = machine.display;
+        shownFrame = machine.frame;
+        shownInput = machine.frame;
+        if (pending != null) {
+            await();
+            for (int column = 0; column < 64; column++) {
+                System.arraycopy(shadow.display[column], 0, shown[column], 0, 32);
+            }
+            pixels = shown;
+            shownFrame = preparedFrame + frames + 1;
+            shownInput = preparedFrame;
+        }
+        preparedFrame = machine.frame;
+        prepare(machine);
+        pending = worker.submit(() -> speculate(frames + 1));
+        overheadNanos += System.nanoTime() - start;
+        return pixels;
+    }
+
+    /**Load the machine's state into the shadow, holding the latched keypad for every speculative frame.*/
+    void prepare(CHIP8 machine) {
+        machine.saveState(snapshot);
+        //keypadMask includes shared-memory input that pendingKeys does not
+        snapshot.pendingKeys = snapshot.keypadMask;
+        shadow.loadState(snapshot);
+    }
+
+    /**Run the shadow machine for count whole frames from its current frame boundary.*/
+    void speculate(int count) {
+        long start = System.nanoTime();
+        long instructions = (long) count * shadow.cyclesPerFrame;
+        for (long i = 0; i < instructions && !shadow.paused; i++) {
+            shadow.step();
+        }
+        speculationNanos += System.nanoTime() - start;
+    }
+
+    private void await() {
+        try {
+            pending.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException("Run-ahead failed: " + ex.getMessage());
+        }
+    }
+
+    /**Lookahead and CPU cost of the speculation.*/
+    public String report() {
+        long n = Math.max(1, presented);
+        double frameMs = 1000.0 / 60;
+        double specMs = speculationNanos / 1e6 / n;
+        return String.format("Run-ahead %d frames (%s): %d presented, speculation %.3f ms/frame (%.1f%% of a frame), "
+            + "main thread %.3f ms/frame",
+            frames, worker != null ? "worker thread" : "same thread", presented, specMs, 100 * specMs / frameMs,
+            overheadNanos / 1e6 / n);
+    }
+
+    /**Drop any speculation in flight, e.g. after the real machine is reset.*/
+    public void reset() {
+        if (pending != null) {
+            await();
+            pending = null;
+        }
+    }
+
+    /**Wait for any speculation in flight and stop the worker.*/
+    public void close() {
+        reset();
+        if (worker != null) {
+            worker.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package chip8.base;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+*   Framebuffer and keypad in a memory-mapped file, for other processes on the same host.
+*
+*   Layout (little endian, 2112 bytes):
+*   <pre>
+*   0    u32   magic "C8SM" (0x4D533843)
+*   4    u32   version (1)
+*   8    u64   sequence number, odd while a frame is being written
+*   16   u64   emulated frame number
+*   24   u32   width (64)
+*   28   u32   height (32)
+*   32   u32   keypad input, written by external processes (bit n = key n)
+*   36   u32   keypad state the program saw during the frame
+*   40   ...   reserved
+*   64   u8[2048]  pixels, one byte each (0 or 1), row major
+*   </pre>
+*
+*   Readers follow the seqlock protocol: read the sequence number, retry while it is odd,
+*   copy what they need, then read it again and retry if it changed.
+*   Input written at offset 32 is ORed with the keyboard at the next frame boundary.
+*/
+public class SharedFrame {
+
+    public static final int MAGIC = 0x4D533843;
+    public static final int VERSION = 1;
+    public static final int SEQ = 8;
+    public static final int FRAME = 16;
+    public static final int WIDTH = 24;
+    public static final int HEIGHT = 28;
+    public static final int INPUT = 32;
+    public static final int KEYPAD = 36;
+    public static final int PIXELS = 64;
+    public static final int SIZE = PIXELS + 64 * 32;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final MappedByteBuffer buffer;
+    private long seq;
+
+    private SharedFrame(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**Map file as the shared frame, creating or resizing it as needed.*/
+    public static SharedFrame create(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            SharedFrame shared = new SharedFrame(channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+            shared.buffer.putInt(0, MAGIC);
+            shared.buffer.putInt(4, VERSION);
+            shared.buffer.putInt(WIDTH, 64);
+            shared.buffer.putInt(HEIGHT, 32);
+            INT.setVolatile(shared.buffer, INPUT, 0);
+            shared.seq = (long) LONG.getVolatile(shared.buffer, SEQ) & ~1L;
+            LONG.setRelease(shared.buffer, SEQ, shared.seq);
+            return shared;
+        }
+    }
+
+    /**Map an existing shared frame, as an external reader would.*/
+    public static SharedFrame open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            SharedFrame shared = new SharedFrame(channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+            if (shared.buffer.getInt(0) != MAGIC || shared.buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a CHIP8 shared frame: " + file);
+            }
+            return shared;
+        }
+    }
+
+    /**Write one completed frame; does not allocate.*/
+    void publish(long frame, boolean[][] display, int keypad) {
+        LONG.setOpaque(buffer, SEQ, ++seq);
+        VarHandle.storeStoreFence();
+        buffer.putLong(FRAME, frame);
+        buffer.putInt(KEYPAD, keypad);
+        int i = PIXELS;
+        for (int row = 0; row < 32; row++) {
+            for (int column = 0; column < 64; column++) {
+                buffer.put(i++, display[column][row] ? (byte) 1 : (byte) 0);
+            }
+        }
+        LONG.setRelease(buffer, SEQ, ++seq);
+    }
+
+    /**Keypad mask injected by external processes.*/
+    int input() {
+        return (int) INT.getAcquire(buffer, INPUT) & 0xFFFF;
+    }
+
+    /**Inject a keypad mask (bit n = key n).*/
+    public void setInput(int mask) {
+        INT.setRelease(buffer, INPUT, mask & 0xFFFF);
+    }
+
+    /**Copy a consistent frame's pixels into dest (2048 bytes) and return its frame number.*/
+    public long read(byte[] dest) {
+        while (true) {
+            long before = (long) LONG.getAcquire(buffer, SEQ);
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long frame = buffer.getLong(FRAME);
+            buffer.get(PIXELS, dest, 0, 64 * 32);
+            VarHandle.loadLoadFence();
+            if ((long) LONG.getAcquire(buffer, SEQ) == before) {
+                return frame;
+            }
+        }
+    }
+}
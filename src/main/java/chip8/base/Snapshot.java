@@ -0,0 +1,25 @@
+package chip8.base;
+
+/**
+*   Complete machine state, with arrays allocated once so saving and restoring does not allocate.
+*   Filled by CHIP8.saveState and applied with CHIP8.loadState.
+*/
+public class Snapshot {
+    final int[] ram = new int[4096];
+    final int[] gpr = new int[16];
+    final int[] stack = new int[16];
+    final boolean[][] display = new boolean[64][32];
+    final boolean[] numpad = new boolean[16];
+    int dt;
+    int st;
+    int pc;
+    int sp;
+    int I;
+    boolean paused;
+    long frame;
+    int cycle;
+    int cyclesPerFrame;
+    long rngState;
+    int pendingKeys;
+    int keypadMask;
+}
@@ -0,0 +1,164 @@
+package chip8.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Breakpoints, watchpoints and stepping.
+ */
+public class DebuggerTest 
+{
+    /** 200: V0=05, CALL 208, jump 204 (spin); 208: I=300, store V0 at I, RET */
+    private static final int[] PROGRAM = {
+        0x60, 0x05, 0x22, 0x08, 0x12, 0x04, 0x00, 0x00,
+        0xA3, 0x00, 0xF0, 0x55, 0x00, 0xEE
+    };
+
+    @Test
+    public void decodesMemoryAccesses()
+    {
+        assertEquals(5, Debugger.accessLength(0xD1, 0x25));
+        assertFalse(Debugger.isWrite(0xD1, 0x25));
+        assertEquals(3, Debugger.accessLength(0xF2, 0x33));
+        assertTrue(Debugger.isWrite(0xF2, 0x33));
+        assertEquals(3, Debugger.accessLength(0xF2, 0x55));
+        assertTrue(Debugger.isWrite(0xF2, 0x55));
+        assertEquals(16, Debugger.accessLength(0xFF, 0x65));
+        assertFalse(Debugger.isWrite(0xFF, 0x65));
+        assertEquals(0, Debugger.accessLength(0xF2, 0x1E));
+        assertEquals(0, Debugger.accessLength(0x60, 0x05));
+    }
+
+    @Test
+    public void stopsAtBreakpointAndResumesPastIt() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(1, PROGRAM);
+        machine.debugger.addBreakpoint(0x208);
+        TestMachine.tick(machine, 10);
+        assertTrue(machine.paused);
+        assertEquals(0x208, machine.pc);
+
+        machine.debugger.resume();
+        TestMachine.tick(machine, 1);
+        assertFalse(machine.paused);
+        assertEquals(0x20A, machine.pc);
+    }
+
+    @Test
+    public void stopsBeforeWatchedWrite() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(1, PROGRAM);
+        machine.debugger.addWatchpoint(0x300, 0x300, false, true);
+        TestMachine.tick(machine, 10);
+        assertTrue(machine.paused);
+        assertEquals(0x20A, machine.pc);
+        assertEquals(0, machine.ram[0x300]);
+    }
+
+    @Test
+    public void ignoresReadsWhenWatchingWrites() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(1, PROGRAM);
+        machine.debugger.addWatchpoint(0x300, 0x300, true, false);
+        TestMachine.tick(machine, 10);
+        assertFalse(machine.paused);
+        assertEquals(5, machine.ram[0x300]);
+    }
+
+    @Test
+    public void stopsOnConditionFromSpec() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(1, PROGRAM);
+        machine.debugger.addCondition("i==300@20a");
+        TestMachine.tick(machine, 10);
+        assertTrue(machine.paused);
+        assertEquals(0x20A, machine.pc);
+    }
+
+    @Test
+    public void resumesPastConditionWithoutPc() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(1, PROGRAM);
+        machine.debugger.addCondition("V0==05");
+        TestMachine.tick(machine, 10);
+        assertTrue(machine.paused);
+        assertEquals(0x202, machine.pc);
+
+        machine.debugger.resume();
+        TestMachine.tick(machine, 10);
+        assertFalse(machine.paused);
+    }
+
+    @Test
+    public void conditionAtPcBreaksEveryVisit() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(1, PROGRAM);
+        machine.debugger.addCondition("V0==05@204");
+        TestMachine.tick(machine, 10);
+        assertTrue(machine.paused);
+        assertEquals(0x204, machine.pc);
+
+        machine.debugger.resume();
+        TestMachine.tick(machine, 3);
+        assertTrue(machine.paused);
+        assertEquals(0x204, machine.pc);
+    }
+
+    @Test
+    public void parsesWatchpointSuffixes() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(1, PROGRAM);
+        machine.debugger.addWatchpoint("2F0-30Fr");
+        TestMachine.tick(machine, 10);
+        assertFalse(machine.paused);
+
+        machine = TestMachine.create(1, PROGRAM);
+        machine.debugger.addWatchpoint("300w");
+        TestMachine.tick(machine, 10);
+        assertTrue(machine.paused);
+        assertEquals(0x20A, machine.pc);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBadWatchpointSpec()
+    {
+        new Debugger(new CHIP8()).addWatchpoint("300-310-320");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBadConditionSpec()
+    {
+        new Debugger(new CHIP8()).addCondition("VG==1");
+    }
+
+    @Test
+    public void stepsOverAndOutOfCalls() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(1, PROGRAM);
+        machine.debugger.addBreakpoint(0x202);
+        TestMachine.tick(machine, 5);
+        assertEquals(0x202, machine.pc);
+
+        machine.debugger.stepOver();
+        TestMachine.tick(machine, 10);
+        assertTrue(machine.paused);
+        assertEquals(0x204, machine.pc);
+        assertEquals(0, machine.sp);
+
+        machine.debugger.clearAll();
+        machine.pc = 0x202;
+        machine.debugger.stepInto();
+        TestMachine.tick(machine, 5);
+        assertEquals(0x208, machine.pc);
+        assertEquals(1, machine.sp);
+
+        machine.debugger.stepOut();
+        TestMachine.tick(machine, 10);
+        assertTrue(machine.paused);
+        assertEquals(0x204, machine.pc);
+        assertFalse(machine.debugger.isArmed());
+    }
+}
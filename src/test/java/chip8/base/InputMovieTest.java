@@ -0,0 +1,52 @@
+package chip8.base;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.Test;
+
+/**
+ * Input movie encoding.
+ */
+public class InputMovieTest 
+{
+    @Test
+    public void roundTripsThroughFile() throws Exception
+    {
+        InputMovie movie = new InputMovie(0x123456789ABCDEFL, 10, 0xCAFEBABE);
+        movie.record(1, 0x0001);
+        movie.record(5, 0x8010);
+        movie.record(300, 0x0000);
+        movie.record(100000, 0xFFFF);
+        movie.record(3000000000L, 0x0002);
+        movie.finalFrame = 3000000010L;
+        movie.finalCycle = 4;
+        movie.displayCrc = 0x11223344;
+        movie.ramCrc = 0x55667788;
+
+        File file = File.createTempFile("chip8", ".c8m");
+        file.deleteOnExit();
+        movie.save(file);
+        InputMovie loaded = InputMovie.load(file);
+
+        assertEquals(movie.seed, loaded.seed);
+        assertEquals(10, loaded.cyclesPerFrame);
+        assertEquals(0xCAFEBABE, loaded.romCrc);
+        assertEquals(5, loaded.size());
+        assertEquals(3000000010L, loaded.finalFrame);
+        assertEquals(4, loaded.finalCycle);
+        assertEquals(0x11223344, loaded.displayCrc);
+        assertEquals(0x55667788, loaded.ramCrc);
+
+        assertEquals(0x0000, loaded.keysAt(0));
+        assertEquals(0x0001, loaded.keysAt(1));
+        assertEquals(0x0001, loaded.keysAt(4));
+        assertEquals(0x8010, loaded.keysAt(5));
+        assertEquals(0x8010, loaded.keysAt(299));
+        assertEquals(0x0000, loaded.keysAt(300));
+        assertEquals(0xFFFF, loaded.keysAt(100000));
+        assertEquals(0xFFFF, loaded.keysAt(2999999999L));
+        assertEquals(0x0002, loaded.keysAt(3000000000L));
+    }
+}
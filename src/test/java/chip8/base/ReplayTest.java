@@ -0,0 +1,85 @@
+package chip8.base;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+/**
+ * Seeded RNG and bit-exact replay of recorded input.
+ */
+public class ReplayTest 
+{
+    /** Random sprites at random places, writing V0-V2 to 300 whenever key 0 is held. */
+    static final int[] PROGRAM = {
+        0xC0, 0xFF, 0xC1, 0x3F, 0xC2, 0x1F, 0xF0, 0x29, 0xD1, 0x25,
+        0xE3, 0x9E, 0x12, 0x00, 0xA3, 0x00, 0xF2, 0x55, 0x12, 0x00
+    };
+
+    /** Loop of V0 = rnd & FF. */
+    private static final int[] RANDOM = { 0xC0, 0xFF, 0x12, 0x00 };
+
+    private static int[] randomBytes(long seed, int count) throws Exception
+    {
+        CHIP8 machine = TestMachine.create(seed, RANDOM);
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            machine.step();
+            values[i] = machine.gpr[0];
+            machine.step();
+        }
+        return values;
+    }
+
+    @Test
+    public void sameSeedGivesSameRandomSequence() throws Exception
+    {
+        assertArrayEquals(randomBytes(42, 256), randomBytes(42, 256));
+        assertFalse(java.util.Arrays.equals(randomBytes(42, 256), randomBytes(43, 256)));
+    }
+
+    /** Run with key changes every few frames and return the saved movie. */
+    private static File record(CHIP8 machine, int instructions) throws Exception
+    {
+        machine.recording = new InputMovie(machine.seed, machine.cyclesPerFrame, machine.romCrc);
+        for (int i = 0; i < instructions; i++) {
+            if (i % 997 == 0) {
+                machine.pendingKeys = (i / 997) % 2 == 0 ? 0x0001 : 0x8010;
+            }
+            machine.step();
+        }
+        machine.recording.finish(machine);
+        File movie = File.createTempFile("chip8", ".c8m");
+        movie.deleteOnExit();
+        machine.recording.save(movie);
+        return movie;
+    }
+
+    @Test
+    public void replayIsBitExact() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(7, PROGRAM);
+        File movie = record(machine, 5000);
+        assertTrue(machine.recording.size() > 1);
+        assertTrue(Replay.run(machine.rom, movie.getPath()));
+    }
+
+    @Test
+    public void replayDetectsDivergence() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(7, PROGRAM);
+        File movie = record(machine, 5000);
+
+        InputMovie loaded = InputMovie.load(movie);
+        InputMovie tampered = new InputMovie(loaded.seed + 1, loaded.cyclesPerFrame, loaded.romCrc);
+        tampered.finalFrame = loaded.finalFrame;
+        tampered.finalCycle = loaded.finalCycle;
+        tampered.displayCrc = loaded.displayCrc;
+        tampered.ramCrc = loaded.ramCrc;
+        tampered.save(movie);
+        assertFalse(Replay.run(machine.rom, movie.getPath()));
+    }
+}
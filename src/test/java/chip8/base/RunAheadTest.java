@@ -0,0 +1,149 @@
+package chip8.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+/**
+ * Snapshots and speculative run-ahead.
+ */
+public class RunAheadTest 
+{
+    @Test
+    public void restoredSnapshotRunsIdentically() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(3, ReplayTest.PROGRAM);
+        machine.pendingKeys = 0x0001;
+        for (int i = 0; i < 3000; i++) {
+            machine.step();
+        }
+        Snapshot snapshot = new Snapshot();
+        machine.saveState(snapshot);
+
+        CHIP8 copy = new CHIP8();
+        copy.headless = true;
+        copy.loadState(snapshot);
+        for (int i = 0; i < 5000; i++) {
+            machine.step();
+            copy.step();
+        }
+        assertEquals(machine.displayCrc(), copy.displayCrc());
+        assertEquals(machine.ramCrc(), copy.ramCrc());
+        assertEquals(machine.frame, copy.frame);
+        assertEquals(machine.pc, copy.pc);
+
+        machine.loadState(snapshot);
+        assertEquals(299, machine.frame);
+        assertEquals(10, machine.cycle);
+    }
+
+    /** Machine whose only input is key 5, injected through a shared frame and latched. */
+    private static CHIP8 injected() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(3, ReplayTest.PROGRAM);
+        File file = File.createTempFile("chip8", ".shm");
+        file.deleteOnExit();
+        machine.shared = SharedFrame.create(file);
+        machine.shared.setInput(1 << 5);
+        for (int i = 0; i < 11; i++) {
+            machine.step();
+        }
+        assertTrue(machine.numpad[5]);
+        return machine;
+    }
+
+    @Test
+    public void shadowKeepsInjectedKeys() throws Exception
+    {
+        CHIP8 machine = injected();
+        RunAhead runAhead = new RunAhead(3, false);
+        runAhead.present(machine);
+        assertEquals(machine.frame + 3, runAhead.shadow.frame);
+        assertTrue(runAhead.shadow.numpad[5]);
+        assertEquals(1 << 5, runAhead.shadow.pendingKeys);
+        assertEquals(1, machine.frame);
+    }
+
+    @Test
+    public void threadedShadowKeepsInjectedKeys() throws Exception
+    {
+        CHIP8 machine = injected();
+        RunAhead runAhead = new RunAhead(1, true);
+        runAhead.present(machine);
+        runAhead.close();
+        assertEquals(machine.frame + 2, runAhead.shadow.frame);
+        assertTrue(runAhead.shadow.numpad[5]);
+    }
+
+    @Test
+    public void resetDropsPendingSpeculation() throws Exception
+    {
+        CHIP8 machine = injected();
+        machine.runAhead = new RunAhead(2, true);
+        machine.runAhead.present(machine);
+        machine.reset();
+        assertSame(machine.display, machine.runAhead.present(machine));
+        machine.runAhead.close();
+    }
+
+    /** Animates a sprite at 0,0 every loop; once key 5 is pressed, draws another at 20,0 and keeps animating. */
+    private static final int[] RESPONSIVE = {
+        0x60, 0x05, 0xA0, 0x00, 0x61, 0x00, 0x62, 0x00,
+        0xD1, 0x25, 0xE0, 0x9E, 0x12, 0x08, 0x61, 0x14,
+        0xD1, 0x25, 0x61, 0x00, 0xD1, 0x25, 0x12, 0x14
+    };
+
+    /** Press key 5 partway through a run and return the measured latency in frames. */
+    private static long measure(RunAhead runAhead) throws Exception
+    {
+        CHIP8 machine = TestMachine.create(3, RESPONSIVE);
+        machine.latency = new InputLatency();
+        machine.runAhead = runAhead;
+        for (int i = 0; i < 105; i++) {
+            machine.step();
+        }
+        machine.pendingKeys = 1 << 5;
+        for (int i = 0; i < 100; i++) {
+            machine.step();
+        }
+        if (runAhead != null) {
+            runAhead.close();
+        }
+        assertEquals(1, machine.latency.samples());
+        return machine.latency.totalFrames();
+    }
+
+    @Test
+    public void measuresLatencyDespiteAnimation() throws Exception
+    {
+        assertEquals(1, measure(null));
+    }
+
+    @Test
+    public void runAheadHidesLatency() throws Exception
+    {
+        assertEquals(0, measure(new RunAhead(2, false)));
+    }
+
+    @Test
+    public void workerThreadCostsAFrame() throws Exception
+    {
+        assertEquals(1, measure(new RunAhead(2, true)));
+    }
+
+    @Test
+    public void ignoresInputsWithoutVisibleEffect() throws Exception
+    {
+        CHIP8 machine = TestMachine.create(3, RESPONSIVE);
+        machine.latency = new InputLatency();
+        machine.pendingKeys = 1 << 7;
+        for (int i = 0; i < 100; i++) {
+            machine.step();
+        }
+        assertEquals(0, machine.latency.samples());
+    }
+}
@@ -0,0 +1,111 @@
+package chip8.base;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * Shared-memory frame layout and seqlock protocol.
+ */
+public class SharedFrameTest 
+{
+    private static File tempFile() throws IOException
+    {
+        File file = File.createTempFile("chip8", ".shm");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /** The file as an external process sees it. */
+    private static ByteBuffer contents(File file) throws IOException
+    {
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void createWritesHeader() throws Exception
+    {
+        File file = tempFile();
+        SharedFrame.create(file);
+        ByteBuffer buffer = contents(file);
+        assertEquals(SharedFrame.SIZE, buffer.capacity());
+        assertEquals(SharedFrame.MAGIC, buffer.getInt(0));
+        assertEquals(0x43, buffer.get(0));
+        assertEquals(0x53, buffer.get(2));
+        assertEquals(SharedFrame.VERSION, buffer.getInt(4));
+        assertEquals(64, buffer.getInt(SharedFrame.WIDTH));
+        assertEquals(32, buffer.getInt(SharedFrame.HEIGHT));
+        assertEquals(0, buffer.getLong(SharedFrame.SEQ));
+    }
+
+    @Test(expected = IOException.class)
+    public void openRejectsOtherFiles() throws Exception
+    {
+        File file = tempFile();
+        Files.write(file.toPath(), new byte[SharedFrame.SIZE]);
+        SharedFrame.open(file);
+    }
+
+    @Test
+    public void publishedFramesReachReaders() throws Exception
+    {
+        File file = tempFile();
+        SharedFrame writer = SharedFrame.create(file);
+        SharedFrame reader = SharedFrame.open(file);
+
+        boolean[][] display = new boolean[64][32];
+        display[3][1] = true;
+        display[63][31] = true;
+        writer.publish(41, display, 0x8010);
+        assertEquals(2, contents(file).getLong(SharedFrame.SEQ));
+
+        byte[] pixels = new byte[64 * 32];
+        assertEquals(41, reader.read(pixels));
+        int lit = 0;
+        for (byte b : pixels) {
+            lit += b;
+        }
+        assertEquals(2, lit);
+        assertEquals(1, pixels[1 * 64 + 3]);
+        assertEquals(1, pixels[31 * 64 + 63]);
+
+        ByteBuffer buffer = contents(file);
+        assertEquals(41, buffer.getLong(SharedFrame.FRAME));
+        assertEquals(0x8010, buffer.getInt(SharedFrame.KEYPAD));
+        assertEquals(1, buffer.get(SharedFrame.PIXELS + 64 + 3));
+
+        display[3][1] = false;
+        writer.publish(42, display, 0);
+        buffer = contents(file);
+        assertEquals(4, buffer.getLong(SharedFrame.SEQ));
+        assertEquals(42, reader.read(pixels));
+        assertEquals(0, pixels[1 * 64 + 3]);
+        assertEquals(0, buffer.getInt(SharedFrame.KEYPAD));
+    }
+
+    @Test
+    public void injectedInputIsVisibleToMachine() throws Exception
+    {
+        File file = tempFile();
+        SharedFrame machineSide = SharedFrame.create(file);
+        SharedFrame.open(file).setInput(0x10005);
+        assertEquals(0x0005, machineSide.input());
+        assertEquals(0x0005, contents(file).getInt(SharedFrame.INPUT));
+    }
+
+    @Test
+    public void reopeningKeepsSequenceEven() throws Exception
+    {
+        File file = tempFile();
+        SharedFrame.create(file).publish(1, new boolean[64][32], 0);
+        SharedFrame again = SharedFrame.create(file);
+        again.publish(2, new boolean[64][32], 0);
+        assertEquals(4, contents(file).getLong(SharedFrame.SEQ));
+    }
+}
@@ -0,0 +1,40 @@
+package chip8.base;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Headless machines running small programs, for tests.
+ */
+class TestMachine
+{
+    /** Write program to a temporary ROM and return a reset, headless machine running it at 600Hz. */
+    static CHIP8 create(long seed, int... program) throws IOException
+    {
+        File rom = File.createTempFile("chip8", ".ch8");
+        rom.deleteOnExit();
+        byte[] bytes = new byte[program.length];
+        for (int i = 0; i < program.length; i++) {
+            bytes[i] = (byte) program[i];
+        }
+        Files.write(rom.toPath(), bytes);
+
+        CHIP8.DEBUG = false;
+        CHIP8 machine = new CHIP8();
+        machine.headless = true;
+        machine.rom = rom.getPath();
+        machine.frequency = 600;
+        machine.seed = seed;
+        machine.reset();
+        return machine;
+    }
+
+    /** Run the machine through its current dispatch path. */
+    static void tick(CHIP8 machine, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            machine.dispatch.run();
+        }
+    }
+}